@@ -0,0 +1,80 @@
+package com.ghondar.torrentstreamer;
+
+import android.os.Process;
+import android.util.Log;
+import androidx.annotation.Nullable;
+
+import com.facebook.react.bridge.ReadableMap;
+
+/**
+ * Storage tuning passed through createTorrent options
+ * Controls how the selected file is allocated on disk and how the
+ * HTTP server threads read it back
+ */
+public class StorageOptions {
+    private static final String TAG = "StorageOptions";
+    public static final String PREALLOCATION_SPARSE = "sparse";
+    public static final String PREALLOCATION_FULL = "full";
+
+    private static final int DEFAULT_READ_BUFFER_SIZE = 8192;
+    private static final int MIN_READ_BUFFER_SIZE = 4096;
+    private static final int MAX_READ_BUFFER_SIZE = 1024 * 1024;
+
+    public final String preallocation;
+    public final int readBufferSize;
+    public final boolean raiseServerThreadPriority;
+
+    public StorageOptions(String preallocation, int readBufferSize, boolean raiseServerThreadPriority) {
+        if (!PREALLOCATION_FULL.equals(preallocation) && !PREALLOCATION_SPARSE.equals(preallocation)) {
+            Log.w(TAG, "Unknown preallocation '" + preallocation + "', using '" + PREALLOCATION_SPARSE + "'");
+        }
+        this.preallocation = PREALLOCATION_FULL.equals(preallocation) ? PREALLOCATION_FULL : PREALLOCATION_SPARSE;
+
+        int clamped = Math.max(MIN_READ_BUFFER_SIZE, Math.min(MAX_READ_BUFFER_SIZE, readBufferSize));
+        if (clamped != readBufferSize) {
+            Log.w(TAG, "readBufferSize " + readBufferSize + " is outside "
+                    + MIN_READ_BUFFER_SIZE + "-" + MAX_READ_BUFFER_SIZE + ", using " + clamped);
+        }
+        this.readBufferSize = clamped;
+        this.raiseServerThreadPriority = raiseServerThreadPriority;
+    }
+
+    public static StorageOptions defaults() {
+        return new StorageOptions(PREALLOCATION_SPARSE, DEFAULT_READ_BUFFER_SIZE, false);
+    }
+
+    public static StorageOptions fromMap(@Nullable ReadableMap map) {
+        if (map == null) {
+            return defaults();
+        }
+
+        String preallocation = map.hasKey("preallocation") && !map.isNull("preallocation")
+                ? map.getString("preallocation")
+                : PREALLOCATION_SPARSE;
+        int readBufferSize = map.hasKey("readBufferSize") && !map.isNull("readBufferSize")
+                ? map.getInt("readBufferSize")
+                : DEFAULT_READ_BUFFER_SIZE;
+        boolean raiseServerThreadPriority = map.hasKey("raiseServerThreadPriority")
+                && !map.isNull("raiseServerThreadPriority")
+                && map.getBoolean("raiseServerThreadPriority");
+
+        return new StorageOptions(preallocation, readBufferSize, raiseServerThreadPriority);
+    }
+
+    public boolean isFullPreallocation() {
+        return PREALLOCATION_FULL.equals(preallocation);
+    }
+
+    /**
+     * CPU priority for the HTTP server threads.
+     * This only changes their nice value; it does not order disk I/O against
+     * libtorrent, whose writes go through mmap and the kernel's flusher threads.
+     */
+    public int serverThreadPriority() {
+        return raiseServerThreadPriority ? Process.THREAD_PRIORITY_FOREGROUND : Process.THREAD_PRIORITY_DEFAULT;
+    }
+
+    public int readaheadThreadPriority() {
+        return Process.THREAD_PRIORITY_BACKGROUND;
+    }
+}
@@ -13,12 +13,18 @@ import android.content.pm.PackageManager;
 import android.net.Uri;
 import android.os.Bundle;
 import android.os.Environment;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.util.Log;
 import androidx.annotation.Nullable;
 import androidx.core.app.ActivityCompat;
 import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.util.Map;
 import java.util.HashMap;
 import org.libtorrent4j.FileStorage;
+import org.libtorrent4j.TorrentHandle;
 
 import com.facebook.react.bridge.WritableMap;
 import com.facebook.react.bridge.WritableArray;
@@ -31,6 +37,7 @@ import com.github.se_bastiaan.torrentstream.TorrentStream;
 import com.github.se_bastiaan.torrentstream.listeners.TorrentListener;
 
 public class TorrentItem implements TorrentListener {
+    private static final String TAG = "TorrentItem";
     private TorrentStream mTorrentStream = null;
     private final String magnetUrl;
     private final ICommand command;
@@ -38,12 +45,16 @@ public class TorrentItem implements TorrentListener {
     private final String _location;
     private TorrentStreamServer httpServer = null;
     private final Context context;
+    private final StorageOptions storageOptions;
+    private File preallocatedFile = null;
+    private boolean downloadFinished = false;
     private int selectedFileIndex = -1;
     private long selectedFileSize = 0;
     private long lastSequentialByte = 0;
 
-    public TorrentItem(String magnetUrl, String location, Boolean removeAfterStop, ICommand command, Context context) {
+    public TorrentItem(String magnetUrl, String location, Boolean removeAfterStop, StorageOptions storageOptions, ICommand command, Context context) {
         this.context = context;
+        this.storageOptions = storageOptions;
 
         // Use app-specific storage (Android 11+ compatible)
         if (location == null) {
@@ -83,6 +94,8 @@ public class TorrentItem implements TorrentListener {
         if (this._torrent != null) {
             this._torrent.setSelectedFileIndex(selectedFileIndex);
             this.selectedFileIndex = selectedFileIndex;
+            // A different selection changes which pieces are wanted
+            this.downloadFinished = false;
 
             // Get the selected file size for progress calculation
             FileStorage fileStorage = this._torrent.getTorrentHandle().torrentFile().files();
@@ -106,6 +119,58 @@ public class TorrentItem implements TorrentListener {
         }
     }
 
+    private void preallocateInBackground(Torrent torrent, final File file) {
+        if (file.equals(this.preallocatedFile)) {
+            return;
+        }
+        this.preallocatedFile = file;
+
+        // Use the size from the torrent, the file on disk may still be short
+        long size = file.length();
+        FileStorage fileStorage = torrent.getTorrentHandle().torrentFile().files();
+        for (int i = 0; i < fileStorage.numFiles(); i++) {
+            if (new File(this._location, fileStorage.filePath(i)).getAbsolutePath().equals(file.getAbsolutePath())) {
+                size = fileStorage.fileSize(i);
+                break;
+            }
+        }
+
+        // Allocating a multi-GB file can take a while, keep it off the caller's thread
+        final long fileSize = size;
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                preallocate(file, fileSize);
+            }
+        }, "TorrentItem-preallocate").start();
+    }
+
+    private void preallocate(File file, long size) {
+        // Reserving every block up front keeps libtorrent's random piece writes
+        // from fragmenting the file; sparse mode leaves allocation to libtorrent
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+        }
+
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "rw");
+            // Only fills holes, so bytes libtorrent already wrote are kept
+            Os.posix_fallocate(raf.getFD(), 0, size);
+        } catch (IOException | ErrnoException e) {
+            Log.w(TAG, "Failed to preallocate " + file.getName() + ", falling back to sparse", e);
+        } finally {
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException e) {
+                    Log.e(TAG, "Error closing preallocated file", e);
+                }
+            }
+        }
+    }
+
     private WritableArray getFileInfos() {
         FileStorage fileStorage = this._torrent.getTorrentHandle().torrentFile().files();
         WritableArray infos = Arguments.createArray();
@@ -150,11 +215,21 @@ public class TorrentItem implements TorrentListener {
         try {
             // Start HTTP server if not already running
             if (this.httpServer == null) {
-                this.httpServer = new TorrentStreamServer(0); // 0 = auto-assign port
+                this.httpServer = new TorrentStreamServer(0, this.storageOptions); // 0 = auto-assign port
             }
 
             File videoFile = torrent.getVideoFile();
             this.httpServer.setVideoFile(videoFile);
+            // Replays of a finished torrent may never report progress, so ask once here
+            if (!this.downloadFinished) {
+                this.downloadFinished = isDownloadFinished(torrent);
+            }
+            this.httpServer.setFileComplete(this.downloadFinished);
+
+            // The streamed file is resolved here whether or not JS picked one
+            if (this.storageOptions.isFullPreallocation()) {
+                preallocateInBackground(torrent, videoFile);
+            }
 
             WritableMap params = Arguments.createMap();
             params.putString("magnetUrl", this.magnetUrl);
@@ -181,7 +256,30 @@ public class TorrentItem implements TorrentListener {
         params.putString("progress", "" + status.progress);
         params.putString("seeds", "" + status.seeds);
 
+        if (this.httpServer != null) {
+            TorrentStreamServer.DiskStats diskStats = this.httpServer.snapshotDiskStats();
+            params.putString("diskActiveStreams", "" + diskStats.activeStreams);
+            params.putString("diskActiveReads", "" + diskStats.activeReads);
+            params.putString("diskQueuedReadaheads", "" + diskStats.queuedReadaheads);
+            params.putString("diskBytesRead", "" + diskStats.bytesRead);
+            params.putString("diskReadTime", "" + diskStats.readTimeMs);
+            params.putString("diskMaxReadTime", "" + diskStats.maxReadTimeMs);
+        }
+
         this.command.sendEvent(this.magnetUrl, "status", params);
+
+        // StreamStatus reports a percentage; only query libtorrent once it reaches 100
+        if (this.httpServer != null && !this.downloadFinished && status.progress >= 100f
+                && isDownloadFinished(torrent)) {
+            this.downloadFinished = true;
+            this.httpServer.setFileComplete(true);
+        }
+    }
+
+    private boolean isDownloadFinished(Torrent torrent) {
+        // Finished means every wanted piece, including the selected file, is on disk
+        TorrentHandle handle = torrent.getTorrentHandle();
+        return handle != null && handle.isValid() && handle.status().isFinished();
     }
 
     @Override
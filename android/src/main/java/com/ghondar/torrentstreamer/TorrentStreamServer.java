@@ -1,5 +1,6 @@
 package com.ghondar.torrentstreamer;
 
+import android.os.Process;
 import android.util.Log;
 
 import java.io.BufferedOutputStream;
@@ -9,11 +10,27 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Lightweight HTTP server for streaming video files
@@ -22,27 +39,109 @@ import java.util.concurrent.atomic.AtomicBoolean;
  */
 public class TorrentStreamServer {
     private static final String TAG = "TorrentStreamServer";
-    private static final int BUFFER_SIZE = 8192;
+    // Completed files are served through memory-mapped windows of this size
+    private static final long MAP_WINDOW_SIZE = 16L * 1024 * 1024;
+    private static final int MAPPED_CHUNK_SIZE = 64 * 1024;
+    private static final int PAGE_SIZE = 4096;
+    // One thread runs the accept loop, so at most IO_THREADS - 1 connections stream
+    // at once; each holds a single mapped window, which bounds the live mappings
+    private static final int IO_THREADS = 4;
+    private static final int READAHEAD_BUFFER_SIZE = 256 * 1024;
+
+    // Explicit unmap hook, null when the runtime does not expose one
+    private static volatile Method unmapMethod;
+    private static Object unmapReceiver;
+
+    static {
+        try {
+            // Android runtime
+            unmapMethod = Class.forName("java.nio.NioUtils").getMethod("freeDirectBuffer", ByteBuffer.class);
+        } catch (Exception e) {
+            try {
+                // OpenJDK 9+, used when the server runs on a desktop JVM
+                Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+                theUnsafe.setAccessible(true);
+                unmapReceiver = theUnsafe.get(null);
+                unmapMethod = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            } catch (Exception ignored) {
+                unmapMethod = null;
+            }
+        }
+    }
 
     private ServerSocket serverSocket;
     private ExecutorService executorService;
+    private ThreadPoolExecutor readaheadExecutor;
     private AtomicBoolean isRunning = new AtomicBoolean(false);
+    private final int readBufferSize;
+    // Only touched from the single readahead thread
+    private final ByteBuffer readaheadBuffer = ByteBuffer.allocateDirect(READAHEAD_BUFFER_SIZE);
+    private int pageTouchSink;
+
+    // Disk read metrics; byte and time totals reset on every snapshot
+    private final AtomicInteger activeStreams = new AtomicInteger(0);
+    private final AtomicInteger activeReads = new AtomicInteger(0);
+    private final AtomicLong bytesRead = new AtomicLong(0);
+    private final AtomicLong readNanos = new AtomicLong(0);
+    private final AtomicLong maxReadNanos = new AtomicLong(0);
     private File videoFile;
+    private volatile boolean fileComplete = false;
+    // Lets the benchmark compare cold replays with and without readahead
+    volatile boolean readaheadEnabled = true;
     private int port;
 
-    public TorrentStreamServer(int port) throws IOException {
+    public TorrentStreamServer(int port, StorageOptions storageOptions) throws IOException {
         this.port = port;
+        this.readBufferSize = storageOptions.readBufferSize;
         // Port 0 means auto-assign
-        this.serverSocket = new ServerSocket(port);
+        // Opened through a channel so accepted sockets can be written to without a heap copy
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        serverChannel.socket().bind(new InetSocketAddress(port));
+        this.serverSocket = serverChannel.socket();
         this.port = serverSocket.getLocalPort();
-        this.executorService = Executors.newFixedThreadPool(4);
+        this.executorService = Executors.newFixedThreadPool(IO_THREADS,
+                priorityThreadFactory("TorrentStreamServer-io", storageOptions.serverThreadPriority()));
+        // A single pending slot: a newer readahead replaces one that a seek made stale
+        this.readaheadExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(1),
+                priorityThreadFactory("TorrentStreamServer-readahead", storageOptions.readaheadThreadPriority()),
+                new ThreadPoolExecutor.DiscardOldestPolicy());
         start();
     }
 
+    private static ThreadFactory priorityThreadFactory(final String name, final int priority) {
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(priority);
+                        runnable.run();
+                    }
+                }, name);
+            }
+        };
+    }
+
     public void setVideoFile(File file) {
+        if (file == null || !file.equals(this.videoFile)) {
+            this.fileComplete = false;
+        }
         this.videoFile = file;
     }
 
+    /**
+     * Marks the current video file as fully downloaded.
+     * Completed files are served from memory-mapped windows instead of the
+     * FileInputStream loop, since their contents can no longer change.
+     * Mapped serving needs an explicit unmap, so it stays off on runtimes without one.
+     */
+    public void setFileComplete(boolean complete) {
+        this.fileComplete = complete;
+    }
+
     private void start() {
         isRunning.set(true);
         executorService.execute(new Runnable() {
@@ -101,9 +200,9 @@ public class TorrentStreamServer {
 
             // Handle range request or full file request
             if (rangeHeader != null && rangeHeader.startsWith("bytes=")) {
-                handleRangeRequest(output, rangeHeader);
+                handleRangeRequest(socket, output, rangeHeader);
             } else {
-                handleFullRequest(output);
+                handleFullRequest(socket, output);
             }
 
             output.flush();
@@ -118,7 +217,7 @@ public class TorrentStreamServer {
         }
     }
 
-    private void handleRangeRequest(OutputStream output, String rangeHeader) throws IOException {
+    private void handleRangeRequest(Socket socket, OutputStream output, String rangeHeader) throws IOException {
         long fileSize = videoFile.length();
         String rangeValue = rangeHeader.substring("bytes=".length());
 
@@ -162,10 +261,10 @@ public class TorrentStreamServer {
         output.write(response.toString().getBytes());
 
         // Stream the requested range
-        streamFileRange(output, start, end);
+        streamFileRange(socket, output, start, end);
     }
 
-    private void handleFullRequest(OutputStream output) throws IOException {
+    private void handleFullRequest(Socket socket, OutputStream output) throws IOException {
         long fileSize = videoFile.length();
 
         // Send HTTP 200 OK response
@@ -180,10 +279,28 @@ public class TorrentStreamServer {
         output.write(response.toString().getBytes());
 
         // Stream the entire file
-        streamFileRange(output, 0, fileSize - 1);
+        streamFileRange(socket, output, 0, fileSize - 1);
+    }
+
+    private void streamFileRange(Socket socket, OutputStream output, long start, long end) throws IOException {
+        activeStreams.incrementAndGet();
+        try {
+            if (fileComplete && unmapMethod != null) {
+                // Headers are still sitting in the buffered stream
+                output.flush();
+                WritableByteChannel target = socket.getChannel() != null
+                        ? socket.getChannel()
+                        : Channels.newChannel(output);
+                streamMappedRange(target, start, end);
+            } else {
+                streamBufferedRange(output, start, end);
+            }
+        } finally {
+            activeStreams.decrementAndGet();
+        }
     }
 
-    private void streamFileRange(OutputStream output, long start, long end) throws IOException {
+    void streamBufferedRange(OutputStream output, long start, long end) throws IOException {
         FileInputStream fis = new FileInputStream(videoFile);
         try {
             // Skip to start position
@@ -195,13 +312,21 @@ public class TorrentStreamServer {
             }
 
             // Stream the content
-            byte[] buffer = new byte[BUFFER_SIZE];
+            byte[] buffer = new byte[readBufferSize];
             long remaining = end - start + 1;
 
             while (remaining > 0) {
                 int toRead = (int) Math.min(buffer.length, remaining);
-                int bytesRead = fis.read(buffer, 0, toRead);
+                activeReads.incrementAndGet();
+                long readStart = System.nanoTime();
+                int bytesRead;
+                try {
+                    bytesRead = fis.read(buffer, 0, toRead);
+                } finally {
+                    activeReads.decrementAndGet();
+                }
                 if (bytesRead == -1) break;
+                recordRead(bytesRead, System.nanoTime() - readStart);
 
                 output.write(buffer, 0, bytesRead);
                 remaining -= bytesRead;
@@ -211,6 +336,205 @@ public class TorrentStreamServer {
         }
     }
 
+    void streamMappedRange(WritableByteChannel target, long start, long end) throws IOException {
+        File file = videoFile;
+        ReadCursor cursor = new ReadCursor(start);
+
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long fileSize = channel.size();
+            long position = start;
+
+            while (position <= end && isRunning.get()) {
+                long window = position / MAP_WINDOW_SIZE;
+                long windowEnd = Math.min(Math.min((window + 1) * MAP_WINDOW_SIZE, end + 1), fileSize);
+                if (windowEnd <= position) break;
+
+                // Playback within a connection only moves forward
+                if (windowEnd <= end && windowEnd < fileSize) {
+                    scheduleReadahead(file, cursor, window + 1);
+                }
+
+                boolean unmapped = false;
+                MappedByteBuffer mapped = null;
+                try {
+                    mapped = channel.map(FileChannel.MapMode.READ_ONLY, position, windowEnd - position);
+                    writeMapped(mapped, target);
+                } finally {
+                    if (mapped != null) {
+                        unmapped = unmap(mapped);
+                    }
+                }
+
+                position = windowEnd;
+                cursor.position = position;
+
+                if (!unmapped) {
+                    // Mapping more windows would leak them, finish the range with plain reads
+                    if (position <= end && isRunning.get()) {
+                        streamBufferedRange(Channels.newOutputStream(target), position, end);
+                    }
+                    break;
+                }
+            }
+        } finally {
+            cursor.closed = true;
+            raf.close();
+        }
+    }
+
+    private void writeMapped(MappedByteBuffer mapped, WritableByteChannel target) throws IOException {
+        int limit = mapped.limit();
+        int offset = 0;
+        while (offset < limit && isRunning.get()) {
+            int chunkEnd = Math.min(offset + MAPPED_CHUNK_SIZE, limit);
+
+            // Fault the chunk in here so disk waits are measured apart from socket waits
+            activeReads.incrementAndGet();
+            long readStart = System.nanoTime();
+            try {
+                int sink = 0;
+                for (int i = offset; i < chunkEnd; i += PAGE_SIZE) {
+                    sink += mapped.get(i);
+                }
+                pageTouchSink = sink;
+            } finally {
+                activeReads.decrementAndGet();
+            }
+            recordRead(chunkEnd - offset, System.nanoTime() - readStart);
+
+            // The socket channel sends straight from the mapping, with no heap copy
+            ByteBuffer chunk = mapped.duplicate();
+            chunk.position(offset);
+            chunk.limit(chunkEnd);
+            while (chunk.hasRemaining()) {
+                target.write(chunk);
+            }
+            offset = chunkEnd;
+        }
+    }
+
+    /**
+     * Releases a serving window. Returns false when the mapping could not be
+     * released, in which case no further windows may be mapped.
+     */
+    private static boolean unmap(MappedByteBuffer mapped) {
+        Method method = unmapMethod;
+        if (method == null) return false;
+
+        try {
+            method.invoke(unmapReceiver, mapped);
+            return true;
+        } catch (Exception e) {
+            // Without a working unmap, mappings would pile up until GC; stop mapping
+            Log.w(TAG, "Explicit unmap failed, disabling mapped serving", e);
+            unmapMethod = null;
+            return false;
+        }
+    }
+
+    private void scheduleReadahead(final File file, final ReadCursor cursor, final long window) {
+        if (!isRunning.get() || !readaheadEnabled) {
+            return;
+        }
+
+        readaheadExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                readahead(file, cursor, window);
+            }
+        });
+    }
+
+    private void readahead(File file, ReadCursor cursor, long window) {
+        long offset = window * MAP_WINDOW_SIZE;
+        if (!isRunning.get() || !fileComplete || file != videoFile || cursor.isPast(offset)) {
+            return;
+        }
+
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "r");
+            FileChannel channel = raf.getChannel();
+            long end = Math.min(offset + MAP_WINDOW_SIZE, channel.size());
+
+            // Plain positional reads warm the page cache without holding a mapping
+            while (offset < end && isRunning.get() && !cursor.isPast(offset)) {
+                readaheadBuffer.clear();
+                readaheadBuffer.limit((int) Math.min(readaheadBuffer.capacity(), end - offset));
+                int bytesRead = channel.read(readaheadBuffer, offset);
+                if (bytesRead <= 0) break;
+                offset += bytesRead;
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Readahead failed for window " + window, e);
+        } finally {
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException e) {
+                    Log.e(TAG, "Error closing readahead file", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Playhead of a single connection, used to drop readahead that a seek or
+     * a closed connection made stale
+     */
+    private static class ReadCursor {
+        volatile long position;
+        volatile boolean closed;
+
+        ReadCursor(long position) {
+            this.position = position;
+        }
+
+        boolean isPast(long offset) {
+            return closed || offset <= position;
+        }
+    }
+
+    private void recordRead(long bytes, long nanos) {
+        bytesRead.addAndGet(bytes);
+        readNanos.addAndGet(nanos);
+        long max;
+        do {
+            max = maxReadNanos.get();
+        } while (nanos > max && !maxReadNanos.compareAndSet(max, nanos));
+    }
+
+    /**
+     * Returns disk read metrics gathered since the previous snapshot.
+     * A read is one FileInputStream read of up to readBufferSize bytes, or faulting
+     * in one 64 KB chunk of a mapped window; socket writes are never counted.
+     */
+    public DiskStats snapshotDiskStats() {
+        DiskStats stats = new DiskStats();
+        stats.activeStreams = activeStreams.get();
+        stats.activeReads = activeReads.get();
+        stats.queuedReadaheads = readaheadExecutor.getQueue().size() + readaheadExecutor.getActiveCount();
+        stats.bytesRead = bytesRead.getAndSet(0);
+        stats.readTimeMs = readNanos.getAndSet(0) / 1000000.0;
+        stats.maxReadTimeMs = maxReadNanos.getAndSet(0) / 1000000.0;
+        return stats;
+    }
+
+    public static class DiskStats {
+        // Connections currently streaming file data, mostly blocked on the socket
+        public int activeStreams;
+        // Threads blocked in a file read at snapshot time
+        public int activeReads;
+        // Readahead jobs queued or running, at most two
+        public int queuedReadaheads;
+        public long bytesRead;
+        // Total and longest time spent blocked in file reads, in milliseconds
+        public double readTimeMs;
+        public double maxReadTimeMs;
+    }
+
     private void sendError(OutputStream output, int statusCode, String message) throws IOException {
         StringBuilder response = new StringBuilder();
         response.append("HTTP/1.1 ").append(statusCode).append(" ").append(message).append("\r\n");
@@ -258,6 +582,10 @@ public class TorrentStreamServer {
         if (executorService != null) {
             executorService.shutdownNow();
         }
+        if (readaheadExecutor != null) {
+            readaheadExecutor.shutdownNow();
+        }
+        fileComplete = false;
         Log.d(TAG, "HTTP server stopped");
     }
 
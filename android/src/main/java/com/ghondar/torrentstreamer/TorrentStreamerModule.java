@@ -5,6 +5,7 @@ import com.facebook.react.bridge.ReactContextBaseJavaModule;
 import com.facebook.react.bridge.ReactMethod;
 import com.facebook.react.bridge.Callback;
 import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.ReadableMap;
 
 import android.Manifest;
 import android.content.Intent;
@@ -42,10 +43,10 @@ public class TorrentStreamerModule extends ReactContextBaseJavaModule implements
     }
 
     @ReactMethod
-    public void createTorrent(String magnetUrl, String location, Boolean removeAfterStop) {
+    public void createTorrent(String magnetUrl, String location, Boolean removeAfterStop, @Nullable ReadableMap storageOptions) {
         if (this.torrents.containsKey(magnetUrl))
             return;
-        TorrentItem torrent = new TorrentItem(magnetUrl, location, removeAfterStop, this, this.reactContext);
+        TorrentItem torrent = new TorrentItem(magnetUrl, location, removeAfterStop, StorageOptions.fromMap(storageOptions), this, this.reactContext);
         this.torrents.put(magnetUrl, torrent);
     }
 
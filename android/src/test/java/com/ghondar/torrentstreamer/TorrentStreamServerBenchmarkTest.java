@@ -0,0 +1,247 @@
+package com.ghondar.torrentstreamer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Compares the FileInputStream loop with mapped serving on a large local file
+ * Disabled by default, run with:
+ * ./gradlew test -Dtorrentstreamer.benchmark=true -Dtorrentstreamer.benchmarkSizeMb=2048
+ *
+ * The warm run reads as fast as possible from the page cache, so readahead has
+ * nothing to hide there. Add -Dtorrentstreamer.benchmarkColdCache=true (needs root
+ * to drop the page cache) for cold replays paced like a player, at
+ * -Dtorrentstreamer.benchmarkRateMb MB/s (default 100), which report the time
+ * spent blocked on the disk with readahead on and off.
+ */
+public class TorrentStreamServerBenchmarkTest {
+    private static final int ITERATIONS = 3;
+
+    private File videoFile;
+    private TorrentStreamServer server;
+    private long fileSize;
+
+    @Before
+    public void setUp() throws IOException {
+        assumeTrue(Boolean.getBoolean("torrentstreamer.benchmark"));
+
+        fileSize = Long.getLong("torrentstreamer.benchmarkSizeMb", 2048L) * 1024 * 1024;
+        videoFile = File.createTempFile("benchmark", ".mp4");
+        writeRandomFile(videoFile, fileSize);
+
+        server = new TorrentStreamServer(0, StorageOptions.defaults());
+        server.setVideoFile(videoFile);
+        server.setFileComplete(true);
+    }
+
+    @After
+    public void tearDown() {
+        if (server != null) {
+            server.stop();
+        }
+        if (videoFile != null) {
+            videoFile.delete();
+        }
+    }
+
+    @Test
+    public void benchmarkBufferedAgainstMapped() throws IOException {
+        long[] buffered = new long[ITERATIONS];
+        long[] mapped = new long[ITERATIONS];
+
+        // Alternate the two paths so both see the same page cache state
+        for (int i = 0; i < ITERATIONS; i++) {
+            DiscardingOutputStream output = new DiscardingOutputStream();
+            long start = System.nanoTime();
+            server.streamBufferedRange(output, 0, fileSize - 1);
+            buffered[i] = System.nanoTime() - start;
+            assertEquals(fileSize, output.bytes);
+
+            DiscardingChannel channel = new DiscardingChannel();
+            start = System.nanoTime();
+            server.streamMappedRange(channel, 0, fileSize - 1);
+            mapped[i] = System.nanoTime() - start;
+            assertEquals(fileSize, channel.bytes);
+        }
+
+        System.out.println("streamBufferedRange: " + describe(buffered));
+        System.out.println("streamMappedRange:   " + describe(mapped));
+    }
+
+    @Test
+    public void benchmarkColdReplay() throws Exception {
+        assumeTrue(Boolean.getBoolean("torrentstreamer.benchmarkColdCache"));
+        long rate = Long.getLong("torrentstreamer.benchmarkRateMb", 100L) * 1024 * 1024;
+
+        dropCaches();
+        server.snapshotDiskStats();
+        long start = System.nanoTime();
+        PacedOutputStream output = new PacedOutputStream(rate);
+        server.streamBufferedRange(output, 0, fileSize - 1);
+        assertEquals(fileSize, output.bytes);
+        report("cold streamBufferedRange", System.nanoTime() - start, server.snapshotDiskStats());
+
+        server.readaheadEnabled = false;
+        dropCaches();
+        server.snapshotDiskStats();
+        start = System.nanoTime();
+        PacedChannel channel = new PacedChannel(rate);
+        server.streamMappedRange(channel, 0, fileSize - 1);
+        assertEquals(fileSize, channel.bytes);
+        report("cold streamMappedRange, no readahead", System.nanoTime() - start, server.snapshotDiskStats());
+
+        server.readaheadEnabled = true;
+        dropCaches();
+        server.snapshotDiskStats();
+        start = System.nanoTime();
+        channel = new PacedChannel(rate);
+        server.streamMappedRange(channel, 0, fileSize - 1);
+        assertEquals(fileSize, channel.bytes);
+        report("cold streamMappedRange, readahead", System.nanoTime() - start, server.snapshotDiskStats());
+    }
+
+    private void report(String label, long nanos, TorrentStreamServer.DiskStats stats) {
+        System.out.println(String.format("%s: %.0f ms total, %.0f ms blocked on disk, longest read %.1f ms",
+                label, nanos / 1e6, stats.readTimeMs, stats.maxReadTimeMs));
+    }
+
+    private static void dropCaches() throws Exception {
+        Runtime.getRuntime().exec("sync").waitFor();
+        FileWriter writer;
+        try {
+            writer = new FileWriter("/proc/sys/vm/drop_caches");
+        } catch (IOException e) {
+            assumeTrue("Dropping the page cache needs root", false);
+            return;
+        }
+        try {
+            writer.write("3");
+        } finally {
+            writer.close();
+        }
+    }
+
+    private String describe(long[] nanos) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        double medianSeconds = sorted[sorted.length / 2] / 1e9;
+        double megabytes = fileSize / (1024.0 * 1024.0);
+        return String.format("median %.0f ms, %.0f MB/s over %.0f MB",
+                medianSeconds * 1000, megabytes / medianSeconds, megabytes);
+    }
+
+    private static void writeRandomFile(File file, long size) throws IOException {
+        byte[] block = new byte[1024 * 1024];
+        new Random(42).nextBytes(block);
+        OutputStream output = new FileOutputStream(file);
+        try {
+            for (long written = 0; written < size; written += block.length) {
+                output.write(block, 0, (int) Math.min(block.length, size - written));
+            }
+        } finally {
+            output.close();
+        }
+    }
+
+    private static class DiscardingOutputStream extends OutputStream {
+        long bytes;
+
+        @Override
+        public void write(int b) {
+            bytes++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            bytes += len;
+        }
+    }
+
+    /**
+     * Throttles a consumer to a fixed rate, like a player draining its buffer
+     */
+    private static class Pacer {
+        private final long bytesPerSecond;
+        private final long startNanos = System.nanoTime();
+
+        Pacer(long bytesPerSecond) {
+            this.bytesPerSecond = bytesPerSecond;
+        }
+
+        void pace(long totalBytes) {
+            long dueNanos = startNanos + totalBytes * 1000000000L / bytesPerSecond;
+            long waitMillis = (dueNanos - System.nanoTime()) / 1000000L;
+            if (waitMillis > 0) {
+                try {
+                    Thread.sleep(waitMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    private static class PacedOutputStream extends DiscardingOutputStream {
+        private final Pacer pacer;
+
+        PacedOutputStream(long bytesPerSecond) {
+            this.pacer = new Pacer(bytesPerSecond);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            super.write(b, off, len);
+            pacer.pace(bytes);
+        }
+    }
+
+    private static class PacedChannel extends DiscardingChannel {
+        private final Pacer pacer;
+
+        PacedChannel(long bytesPerSecond) {
+            this.pacer = new Pacer(bytesPerSecond);
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            int written = super.write(src);
+            pacer.pace(bytes);
+            return written;
+        }
+    }
+
+    private static class DiscardingChannel implements WritableByteChannel {
+        long bytes;
+
+        @Override
+        public int write(ByteBuffer src) {
+            int remaining = src.remaining();
+            src.position(src.limit());
+            bytes += remaining;
+            return remaining;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
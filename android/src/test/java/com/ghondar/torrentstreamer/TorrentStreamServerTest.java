@@ -0,0 +1,100 @@
+package com.ghondar.torrentstreamer;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that both serving paths return exactly the requested bytes,
+ * including ranges that start mid-window or cross a mapped window boundary
+ */
+public class TorrentStreamServerTest {
+    private static final long WINDOW = 16L * 1024 * 1024;
+    // Spans two full windows and a partial third
+    private static final long FILE_SIZE = 2 * WINDOW + 1234567;
+
+    private File videoFile;
+    private TorrentStreamServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        videoFile = File.createTempFile("stream", ".mp4");
+        byte[] block = new byte[1024 * 1024];
+        Random random = new Random(7);
+        OutputStream output = new FileOutputStream(videoFile);
+        try {
+            for (long written = 0; written < FILE_SIZE; written += block.length) {
+                random.nextBytes(block);
+                output.write(block, 0, (int) Math.min(block.length, FILE_SIZE - written));
+            }
+        } finally {
+            output.close();
+        }
+
+        server = new TorrentStreamServer(0, StorageOptions.defaults());
+        server.setVideoFile(videoFile);
+        server.setFileComplete(true);
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+        videoFile.delete();
+    }
+
+    @Test
+    public void mappedRangeMatchesFile() throws IOException {
+        for (long[] range : ranges()) {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            server.streamMappedRange(Channels.newChannel(output), range[0], range[1]);
+            assertArrayEquals("bytes " + range[0] + "-" + range[1],
+                    readFile(range[0], range[1]), output.toByteArray());
+        }
+    }
+
+    @Test
+    public void bufferedRangeMatchesFile() throws IOException {
+        for (long[] range : ranges()) {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            server.streamBufferedRange(output, range[0], range[1]);
+            assertArrayEquals("bytes " + range[0] + "-" + range[1],
+                    readFile(range[0], range[1]), output.toByteArray());
+        }
+    }
+
+    private static long[][] ranges() {
+        return new long[][] {
+                {0, FILE_SIZE - 1},                 // whole file
+                {1000, WINDOW + 5000},              // partial first window
+                {WINDOW - 10, WINDOW + 10},         // crosses the first boundary
+                {WINDOW - 1, 2 * WINDOW},           // spans a full window
+                {0, 0},                             // first byte
+                {WINDOW, WINDOW},                   // single byte on a boundary
+                {FILE_SIZE - 1000, FILE_SIZE - 1},  // tail
+                {FILE_SIZE - 1, FILE_SIZE - 1}      // last byte
+        };
+    }
+
+    private byte[] readFile(long start, long end) throws IOException {
+        byte[] expected = new byte[(int) (end - start + 1)];
+        RandomAccessFile raf = new RandomAccessFile(videoFile, "r");
+        try {
+            raf.seek(start);
+            raf.readFully(expected);
+        } finally {
+            raf.close();
+        }
+        return expected;
+    }
+}
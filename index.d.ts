@@ -1,7 +1,23 @@
 declare module 'react-native-torrent-streamer' {
+  export interface TorrentStorageOptions {
+    /** 'sparse' leaves allocation to libtorrent, 'full' reserves the selected file up front */
+    preallocation?: 'sparse' | 'full';
+    /**
+     * Bytes read per call by the HTTP server while the file is still downloading,
+     * clamped to 4096-1048576 (default: 8192). Completed files use 64 KB mapped chunks.
+     */
+    readBufferSize?: number;
+    /**
+     * Raise the CPU priority (nice -2) of the HTTP server threads.
+     * Does not reorder disk I/O against libtorrent's writes.
+     */
+    raiseServerThreadPriority?: boolean;
+  }
+
   export interface TorrentStreamOptions {
     saveLocation?: string | null;
     removeAfterStop?: boolean;
+    storage?: TorrentStorageOptions | null;
   }
 
   export interface TorrentStreamResult {
@@ -16,6 +32,22 @@ declare module 'react-native-torrent-streamer' {
     numSeeds: number;
     buffer: number;
     sequentialProgress: number;
+    disk: TorrentDiskStats;
+  }
+
+  export interface TorrentDiskStats {
+    /** Connections currently streaming file data, mostly waiting on the player */
+    activeStreams: number;
+    /** Server threads blocked in a file read right now */
+    activeReads: number;
+    /** Readahead jobs queued or running (at most 2) */
+    queuedReadaheads: number;
+    /** Bytes read from the file since the previous status event */
+    bytesRead: number;
+    /** Total ms spent blocked in file reads since the previous status event */
+    readTime: number;
+    /** Longest single file read in ms since the previous status event */
+    maxReadTime: number;
   }
 
   export interface TorrentEventSubscription {
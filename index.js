@@ -39,7 +39,15 @@ function reattachEventListeners() {
             progress: parseFloat(data.progress || 0),
             downloadRate: parseFloat(data.downloadSpeed || 0),
             numSeeds: parseInt(data.seeds || 0),
-            buffer: parseFloat(data.buffer || 0)
+            buffer: parseFloat(data.buffer || 0),
+            disk: {
+              activeStreams: parseInt(data.diskActiveStreams || 0),
+              activeReads: parseInt(data.diskActiveReads || 0),
+              queuedReadaheads: parseInt(data.diskQueuedReadaheads || 0),
+              bytesRead: parseFloat(data.diskBytesRead || 0),
+              readTime: parseFloat(data.diskReadTime || 0),
+              maxReadTime: parseFloat(data.diskMaxReadTime || 0)
+            }
           };
         }
 
@@ -65,10 +73,14 @@ const TorrentStreamer = {
    * @param {object} options - Optional configuration
    * @param {string} options.saveLocation - Custom save location (optional)
    * @param {boolean} options.removeAfterStop - Remove files after stop (default: true)
+   * @param {object} options.storage - Storage tuning (optional)
+   * @param {string} options.storage.preallocation - 'sparse' (default) or 'full'
+   * @param {number} options.storage.readBufferSize - Server read chunk in bytes for files still downloading (default: 8192)
+   * @param {boolean} options.storage.raiseServerThreadPriority - Raise CPU priority of the server threads (default: false)
    * @returns {Promise<{url: string, fileName: string, fileSize: number}>}
    */
   start(magnetUri, options = {}) {
-    const { saveLocation = null, removeAfterStop = true } = options;
+    const { saveLocation = null, removeAfterStop = true, storage = null } = options;
 
     if (!magnetUri) {
       return Promise.reject(new Error('magnetUri cannot be empty'));
@@ -124,7 +136,7 @@ const TorrentStreamer = {
       progressSubscription = DeviceEventEmitter.addListener(TORRENT_STREAMER_EVENTS.progress + magnetUri, progressListener);
 
       // Start the torrent
-      NativeTorrentStreamer.createTorrent(magnetUri, saveLocation, removeAfterStop);
+      NativeTorrentStreamer.createTorrent(magnetUri, saveLocation, removeAfterStop, storage);
       NativeTorrentStreamer.start(magnetUri);
     });
   },
@@ -176,7 +188,15 @@ const TorrentStreamer = {
             progress: parseFloat(data.progress || 0),
             downloadRate: parseFloat(data.downloadSpeed || 0),
             numSeeds: parseInt(data.seeds || 0),
-            buffer: parseFloat(data.buffer || 0)
+            buffer: parseFloat(data.buffer || 0),
+            disk: {
+              activeStreams: parseInt(data.diskActiveStreams || 0),
+              activeReads: parseInt(data.diskActiveReads || 0),
+              queuedReadaheads: parseInt(data.diskQueuedReadaheads || 0),
+              bytesRead: parseFloat(data.diskBytesRead || 0),
+              readTime: parseFloat(data.diskReadTime || 0),
+              maxReadTime: parseFloat(data.diskMaxReadTime || 0)
+            }
           };
         }
 
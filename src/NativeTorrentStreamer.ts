@@ -2,7 +2,12 @@ import type { TurboModule } from 'react-native';
 import { TurboModuleRegistry } from 'react-native';
 
 export interface Spec extends TurboModule {
-  createTorrent(magnetUrl: string, location: string | null, removeAfterStop: boolean): void;
+  createTorrent(
+    magnetUrl: string,
+    location: string | null,
+    removeAfterStop: boolean,
+    storageOptions: Object | null
+  ): void;
   start(magnetUrl: string): void;
   stop(magnetUrl: string): void;
   destroy(magnetUrl: string): void;